@@ -0,0 +1,127 @@
+package vincent.search;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes files as chunks of {@link #LINES_PER_CHUNK} lines with bounded memory.
+ * <p>
+ * The calling thread walks the tree and reads chunks; a few index threads hand them to the
+ * {@link IndexWriter}. Every queued chunk holds part of the {@link IngestMemoryGovernor} budget
+ * until the writer has taken it, so the reader blocks instead of running ahead of the writer.
+ * Files are indexed as they are found rather than collected up front.
+ */
+public class ChunkIndexer {
+
+    static final int LINES_PER_CHUNK = 5;
+
+    private final IndexWriter writer;
+    private final IngestMemoryGovernor governor;
+    private final AtomicInteger failedChunks = new AtomicInteger();
+
+    public ChunkIndexer(IndexWriter writer, IngestMemoryGovernor governor) {
+        this.writer = writer;
+        this.governor = governor;
+    }
+
+    /**
+     * Indexes a text file, or every text file below a folder.
+     *
+     * @param file a text file or a folder
+     * @throws IOException when interrupted while waiting for memory or for the index threads
+     */
+    public void indexFileOrDirectory(File file) throws IOException {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        ExecutorService indexThreads = Executors.newFixedThreadPool(threads);
+        try {
+            walk(file, indexThreads);
+        } finally {
+            indexThreads.shutdown();
+            try {
+                indexThreads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for index threads", e);
+            }
+        }
+        if (failedChunks.get() > 0) {
+            System.out.println(failedChunks.getAndSet(0) + " chunks could not be added.");
+        }
+    }
+
+    private void walk(File file, ExecutorService indexThreads) throws IOException {
+        if (!file.exists()) {
+            System.out.println(file + " does not exist.");
+        }
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    walk(f, indexThreads);
+                }
+            }
+        } else if (isTextFile(file.getName())) {
+            indexFile(file, indexThreads);
+        } else {
+            System.out.println("Skipped " + file.getName().toLowerCase());
+        }
+    }
+
+    private void indexFile(File f, ExecutorService indexThreads) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(f))) {
+            ChunkReader chunks = new ChunkReader(reader, LINES_PER_CHUNK, governor.getMaxChunkChars());
+            ChunkReader.Chunk chunk;
+            while ((chunk = chunks.next()) != null) {
+                int permits = governor.acquire(chunk.text);
+                Document doc = chunkDocument(f, chunk.text, chunk.lineNumber);
+                indexThreads.execute(() -> {
+                    try {
+                        writer.addDocument(doc);
+                    } catch (Exception e) {
+                        failedChunks.incrementAndGet();
+                        System.out.println("Could not add chunk of " + f + " at line " + doc.get("lineNumber") + " : " + e.getMessage());
+                    } finally {
+                        governor.release(permits);
+                    }
+                });
+            }
+            System.out.println("Added: " + f);
+        } catch (IOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            System.out.println("Could not add: " + f);
+        }
+    }
+
+    static Document chunkDocument(File f, String text, int lineNumber) {
+        Document doc = new Document();
+        doc.add(new TextField("contents", text, Field.Store.YES));
+        doc.add(new StringField("path", f.getPath(), Field.Store.YES));
+        doc.add(new StringField("filename", f.getName(), Field.Store.YES));
+        FacetFields.addFacetFields(doc, f);
+        doc.add(new StringField("lineNumber", Integer.toString(lineNumber), Field.Store.YES));
+        return doc;
+    }
+
+    /**
+     * Only index text files
+     */
+    static boolean isTextFile(String name) {
+        String filename = name.toLowerCase();
+        return filename.endsWith(".htm") || filename.endsWith(".html") ||
+                filename.endsWith(".xml") || filename.endsWith(".txt");
+    }
+}
@@ -0,0 +1,111 @@
+package vincent.search;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a text file into chunks of a few lines each without ever holding more than one chunk.
+ * <p>
+ * Unlike {@link java.io.BufferedReader#readLine()}, a line is never materialized on its own: a
+ * line longer than the chunk cap is cut into several chunks that all report the same line number.
+ * The cut is made after the last whitespace so no word is split in two; the partial word is carried
+ * over to the next chunk. Only a run without any whitespace is cut at the cap itself.
+ * Line breaks are replaced by a space, the same as the original chunking did.
+ */
+class ChunkReader {
+
+    private final Reader in;
+    private final int linesPerChunk;
+    private final int maxChunkChars;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int length;
+    // the line the next character belongs to
+    private int lineNumber = 1;
+    // the partial word left over when the previous chunk was cut
+    private String carry = "";
+
+    ChunkReader(Reader in, int linesPerChunk, int maxChunkChars) {
+        this.in = in;
+        this.linesPerChunk = linesPerChunk;
+        this.maxChunkChars = maxChunkChars;
+    }
+
+    /**
+     * @return the next chunk, or null at end of file
+     * @throws IOException when exception reading
+     */
+    Chunk next() throws IOException {
+        StringBuilder text = new StringBuilder(carry);
+        carry = "";
+        int startLine = lineNumber;
+        int lines = 0;
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '\n' || c == '\r') {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                text.append(' ');
+                lineNumber++;
+                if (++lines == linesPerChunk) {
+                    break;
+                }
+            } else {
+                text.append((char) c);
+                // split oversized lines, but never between the two halves of a surrogate pair
+                if (text.length() >= maxChunkChars && !Character.isHighSurrogate((char) c)) {
+                    int cut = lastWhitespace(text) + 1;
+                    if (cut > 0) {
+                        carry = text.substring(cut);
+                        text.setLength(cut);
+                    }
+                    break;
+                }
+            }
+        }
+        return text.length() == 0 ? null : new Chunk(text.toString(), startLine);
+    }
+
+    private static int lastWhitespace(StringBuilder text) {
+        for (int i = text.length() - 1; i >= 0; i--) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        if (position < length) {
+            return true;
+        }
+        length = in.read(buffer, 0, buffer.length);
+        position = 0;
+        return length > 0;
+    }
+
+    static class Chunk {
+        final String text;
+        final int lineNumber;
+
+        Chunk(String text, int lineNumber) {
+            this.text = text;
+            this.lineNumber = lineNumber;
+        }
+    }
+}
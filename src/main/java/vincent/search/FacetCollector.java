@@ -0,0 +1,235 @@
+package vincent.search;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the {@link FacetFields} values of every matching chunk.
+ * <p>
+ * Meant to be combined with the top hits collector, through {@link Manager} and a
+ * {@link org.apache.lucene.search.MultiCollectorManager}, so the facets come out of the same pass
+ * over the postings. Counting is done on segment ordinals and only resolved to strings once per segment.
+ */
+public class FacetCollector extends SimpleCollector {
+
+    private final Map<String, Integer> dirCounts = new HashMap<>();
+    private final Map<String, Integer> extensionCounts = new HashMap<>();
+    private final Map<String, Integer> filenameCounts = new HashMap<>();
+    private int totalHits;
+
+    private SortedSetDocValues dirValues;
+    private SortedDocValues extensionValues;
+    private SortedDocValues filenameValues;
+    private int[] dirOrdCounts;
+    private int[] extensionOrdCounts;
+    private int[] filenameOrdCounts;
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        flushSegment();
+        dirValues = DocValues.getSortedSet(context.reader(), FacetFields.DIR);
+        extensionValues = DocValues.getSorted(context.reader(), FacetFields.EXTENSION);
+        filenameValues = DocValues.getSorted(context.reader(), FacetFields.FILENAME);
+        dirOrdCounts = new int[(int) dirValues.getValueCount()];
+        extensionOrdCounts = new int[extensionValues.getValueCount()];
+        filenameOrdCounts = new int[filenameValues.getValueCount()];
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        totalHits++;
+        if (dirValues.advanceExact(doc)) {
+            for (int i = 0; i < dirValues.docValueCount(); i++) {
+                dirOrdCounts[(int) dirValues.nextOrd()]++;
+            }
+        }
+        if (extensionValues.advanceExact(doc)) {
+            extensionOrdCounts[extensionValues.ordValue()]++;
+        }
+        if (filenameValues.advanceExact(doc)) {
+            filenameOrdCounts[filenameValues.ordValue()]++;
+        }
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    private void flushSegment() throws IOException {
+        if (dirOrdCounts == null) {
+            return;
+        }
+        for (int ord = 0; ord < dirOrdCounts.length; ord++) {
+            if (dirOrdCounts[ord] > 0) {
+                dirCounts.merge(dirValues.lookupOrd(ord).utf8ToString(), dirOrdCounts[ord], Integer::sum);
+            }
+        }
+        for (int ord = 0; ord < extensionOrdCounts.length; ord++) {
+            if (extensionOrdCounts[ord] > 0) {
+                extensionCounts.merge(extensionValues.lookupOrd(ord).utf8ToString(), extensionOrdCounts[ord], Integer::sum);
+            }
+        }
+        for (int ord = 0; ord < filenameOrdCounts.length; ord++) {
+            if (filenameOrdCounts[ord] > 0) {
+                filenameCounts.merge(filenameValues.lookupOrd(ord).utf8ToString(), filenameOrdCounts[ord], Integer::sum);
+            }
+        }
+        dirOrdCounts = null;
+        extensionOrdCounts = null;
+        filenameOrdCounts = null;
+    }
+
+    /**
+     * One collector per slice when the searcher has an executor, summed up in {@link #reduce}.
+     */
+    public static class Manager implements CollectorManager<FacetCollector, FacetCollector> {
+
+        @Override
+        public FacetCollector newCollector() {
+            return new FacetCollector();
+        }
+
+        @Override
+        public FacetCollector reduce(Collection<FacetCollector> collectors) throws IOException {
+            FacetCollector merged = new FacetCollector();
+            for (FacetCollector collector : collectors) {
+                collector.flushSegment();
+                merged.totalHits += collector.totalHits;
+                collector.dirCounts.forEach((k, v) -> merged.dirCounts.merge(k, v, Integer::sum));
+                collector.extensionCounts.forEach((k, v) -> merged.extensionCounts.merge(k, v, Integer::sum));
+                collector.filenameCounts.forEach((k, v) -> merged.filenameCounts.merge(k, v, Integer::sum));
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * @return the number of chunks that matched, not only the ones in the top hits
+     */
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * Top values of a flat dimension.
+     *
+     * @param field {@link FacetFields#EXTENSION} or {@link FacetFields#FILENAME}
+     * @param topN  how many values to return
+     * @return value and count pairs, highest count first
+     * @throws IOException when exception reading the last segment
+     */
+    public List<Map.Entry<String, Integer>> getTopValues(String field, int topN) throws IOException {
+        flushSegment();
+        Map<String, Integer> counts = FacetFields.EXTENSION.equals(field) ? extensionCounts
+                : FacetFields.FILENAME.equals(field) ? filenameCounts
+                : dirCounts;
+        return top(counts.entrySet(), topN);
+    }
+
+    /**
+     * Top sub directories of a directory. When no parent is given, starts at the deepest
+     * directory that holds every match so the answer is not a chain of single-child roots.
+     *
+     * @param parent the drilled down directory, or null
+     * @param topN   how many directories to return
+     * @return the starting directory, its count and its top sub directories
+     * @throws IOException when exception reading the last segment
+     */
+    public DirectoryCounts getTopDirectories(String parent, int topN) throws IOException {
+        flushSegment();
+        String current = parent == null ? null : FacetFields.normalizeDir(parent);
+        List<Map.Entry<String, Integer>> children = childrenOf(current);
+        while (parent == null && children.size() == 1 && children.get(0).getValue() == totalHits) {
+            current = children.get(0).getKey();
+            children = childrenOf(current);
+        }
+        int count = current == null ? totalHits : dirCounts.getOrDefault(current, 0);
+        // every match below the directory is counted in exactly one child, unless it sits in the directory itself
+        int inDirectory = count;
+        for (Map.Entry<String, Integer> child : children) {
+            inDirectory -= child.getValue();
+        }
+        return new DirectoryCounts(current, count, inDirectory, top(children, topN));
+    }
+
+    /**
+     * Where the matches below one directory are.
+     */
+    public static class DirectoryCounts {
+        private final String directory;
+        private final int count;
+        private final int inDirectory;
+        private final List<Map.Entry<String, Integer>> children;
+
+        DirectoryCounts(String directory, int count, int inDirectory, List<Map.Entry<String, Integer>> children) {
+            this.directory = directory;
+            this.count = count;
+            this.inDirectory = inDirectory;
+            this.children = children;
+        }
+
+        /**
+         * @return the starting directory, null when the matches have no common root
+         */
+        public String getDirectory() {
+            return directory;
+        }
+
+        /**
+         * @return the matches anywhere below the directory
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the matches in files directly in the directory, not in a sub directory
+         */
+        public int getInDirectory() {
+            return inDirectory;
+        }
+
+        /**
+         * @return sub directory and count pairs, highest count first
+         */
+        public List<Map.Entry<String, Integer>> getChildren() {
+            return children;
+        }
+    }
+
+    private List<Map.Entry<String, Integer>> childrenOf(String parent) {
+        List<Map.Entry<String, Integer>> children = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : dirCounts.entrySet()) {
+            String entryParent = new File(entry.getKey()).getParent();
+            if (parent == null ? entryParent == null : parent.equals(entryParent)) {
+                children.add(entry);
+            }
+        }
+        return children;
+    }
+
+    private static List<Map.Entry<String, Integer>> top(Iterable<Map.Entry<String, Integer>> entries, int topN) {
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            sorted.add(entry);
+        }
+        sorted.sort((a, b) -> b.getValue().equals(a.getValue())
+                ? a.getKey().compareTo(b.getKey())
+                : Integer.compare(b.getValue(), a.getValue()));
+        return sorted.size() > topN ? sorted.subList(0, topN) : sorted;
+    }
+}
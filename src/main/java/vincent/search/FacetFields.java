@@ -0,0 +1,101 @@
+package vincent.search;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Facet dimensions attached to every indexed chunk.
+ * <p>
+ * Each dimension is written twice: as an indexed {@link StringField} so a result set can be
+ * drilled down to one value, and as doc values so {@link FacetCollector} can count values
+ * in the same pass that collects the top hits. The dimensions use their own field names so
+ * indexes built before facets existed keep accepting new documents.
+ */
+public final class FacetFields {
+
+    /** every ancestor directory of the file, absolute and normalized, so counts roll up the path hierarchy */
+    public static final String DIR = "facet.dir";
+    /** lower-cased file extension without the dot */
+    public static final String EXTENSION = "facet.extension";
+    /** the file name, as in the stored "filename" field */
+    public static final String FILENAME = "facet.filename";
+
+    private FacetFields() {
+    }
+
+    /**
+     * Adds the facet fields of a file to a chunk document.
+     *
+     * @param doc the chunk being indexed
+     * @param f   the file the chunk comes from
+     */
+    public static void addFacetFields(Document doc, File f) {
+        Path dir = f.toPath().toAbsolutePath().normalize().getParent();
+        while (dir != null) {
+            String value = dir.toString();
+            doc.add(new StringField(DIR, value, Field.Store.NO));
+            doc.add(new SortedSetDocValuesField(DIR, new BytesRef(value)));
+            dir = dir.getParent();
+        }
+
+        String extension = extensionOf(f.getName());
+        doc.add(new StringField(EXTENSION, extension, Field.Store.NO));
+        doc.add(new SortedDocValuesField(EXTENSION, new BytesRef(extension)));
+
+        doc.add(new StringField(FILENAME, f.getName(), Field.Store.NO));
+        doc.add(new SortedDocValuesField(FILENAME, new BytesRef(f.getName())));
+    }
+
+    /**
+     * Restricts a query to the given facet values without affecting its scores.
+     *
+     * @param query     the user query
+     * @param drillDown facet field to required value, e.g. {@link #EXTENSION} to "log"; may be null
+     * @return the query itself when there is nothing to drill down on
+     */
+    public static Query drillDown(Query query, Map<String, String> drillDown) {
+        if (drillDown == null || drillDown.isEmpty()) {
+            return query;
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(query, BooleanClause.Occur.MUST);
+        for (Map.Entry<String, String> entry : drillDown.entrySet()) {
+            String value = entry.getValue();
+            if (DIR.equals(entry.getKey())) {
+                value = normalizeDir(value);
+            } else if (EXTENSION.equals(entry.getKey())) {
+                // extensions are indexed lower-cased and without the dot
+                value = (value.startsWith(".") ? value.substring(1) : value).toLowerCase();
+            }
+            builder.add(new TermQuery(new Term(entry.getKey(), value)), BooleanClause.Occur.FILTER);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param dir a directory as the user typed it, e.g. "../data/teamB"
+     * @return the directory in the absolute, normalized form it is indexed in
+     */
+    static String normalizeDir(String dir) {
+        return Paths.get(dir).toAbsolutePath().normalize().toString();
+    }
+
+    static String extensionOf(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot < 0 ? "" : filename.substring(dot + 1).toLowerCase();
+    }
+}
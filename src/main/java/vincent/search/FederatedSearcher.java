@@ -0,0 +1,283 @@
+package vincent.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Searches several index folders as if they were one.
+ * <p>
+ * Every search runs a single {@link IndexSearcher} over a {@link MultiReader} of the attached
+ * indexes, so term statistics are global and scores from different indexes rank correctly against
+ * each other. The searcher is given an executor and at least one slice per index, so the indexes
+ * are searched concurrently. Indexes are known by their normalized absolute path, so the same
+ * folder spelled two ways is attached only once.
+ * Indexes can be attached and detached while searches run; a search keeps the indexes it
+ * started with until it is closed.
+ */
+public class FederatedSearcher implements Closeable {
+
+    // the IndexSearcher defaults, applied within each index
+    private static final int MAX_DOCS_PER_SLICE = 250_000;
+    private static final int MAX_SEGMENTS_PER_SLICE = 5;
+
+    private final Map<String, Member> members = new LinkedHashMap<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "federated-search");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static class Member {
+        final FSDirectory directory;
+        final SearcherManager manager;
+        final boolean ownsDirectory;
+
+        Member(FSDirectory directory, SearcherManager manager, boolean ownsDirectory) {
+            this.directory = directory;
+            this.manager = manager;
+            this.ownsDirectory = ownsDirectory;
+        }
+    }
+
+    /**
+     * Attaches an index folder, opening it read only.
+     *
+     * @param location the index folder
+     * @throws IOException when the folder holds no index
+     */
+    public void attach(String location) throws IOException {
+        location = normalize(location);
+        if (isAttached(location)) {
+            throw new IllegalArgumentException(location + " is already attached");
+        }
+        FSDirectory directory = IndexWarmer.openDirectory(new File(location).toPath());
+        try {
+            attach(location, directory, true);
+        } catch (IOException | RuntimeException e) {
+            // also when another thread attached the same folder since the check above
+            directory.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Attaches an index whose directory is managed by the caller, e.g. the one being written to.
+     *
+     * @param location      the name the index is known by
+     * @param directory     the opened index folder
+     * @param ownsDirectory true to close the directory when the index is detached
+     * @throws IOException when the folder holds no index
+     */
+    public synchronized void attach(String location, FSDirectory directory, boolean ownsDirectory) throws IOException {
+        location = normalize(location);
+        if (members.containsKey(location)) {
+            throw new IllegalArgumentException(location + " is already attached");
+        }
+        SearcherManager manager = new SearcherManager(directory, new SearcherFactory());
+        members.put(location, new Member(directory, manager, ownsDirectory));
+    }
+
+    /**
+     * Detaches an index. Searches already running on it finish normally.
+     *
+     * @param location the index folder
+     * @return false if it was not attached
+     * @throws IOException when exception closing
+     */
+    public synchronized boolean detach(String location) throws IOException {
+        Member member = members.remove(normalize(location));
+        if (member == null) {
+            return false;
+        }
+        member.manager.close();
+        if (member.ownsDirectory) {
+            member.directory.close();
+        }
+        return true;
+    }
+
+    public synchronized boolean isAttached(String location) {
+        return members.containsKey(normalize(location));
+    }
+
+    /**
+     * @param location an index folder as typed, relative or absolute
+     * @return the real path when the folder exists, otherwise the absolute normalized path
+     */
+    public static String normalize(String location) {
+        Path path = Paths.get(location).toAbsolutePath().normalize();
+        try {
+            return path.toRealPath().toString();
+        } catch (IOException e) {
+            return path.toString();
+        }
+    }
+
+    public synchronized List<String> getLocations() {
+        return new ArrayList<>(members.keySet());
+    }
+
+    /**
+     * Picks up changes committed to the attached indexes since they were opened.
+     * The indexes are reopened outside the lock, so searches keep acquiring the current view meanwhile.
+     *
+     * @throws IOException when exception reopening
+     */
+    public void maybeRefresh() throws IOException {
+        List<SearcherManager> managers;
+        synchronized (this) {
+            managers = new ArrayList<>();
+            for (Member member : members.values()) {
+                managers.add(member.manager);
+            }
+        }
+        for (SearcherManager manager : managers) {
+            try {
+                manager.maybeRefresh();
+            } catch (AlreadyClosedException e) {
+                // detached since the copy was taken
+            }
+        }
+    }
+
+    /**
+     * Takes a point in time view of every attached index. Must be closed after use.
+     *
+     * @return the view
+     * @throws IOException when exception opening
+     */
+    public synchronized Searcher acquire() throws IOException {
+        List<String> locations = new ArrayList<>();
+        List<SearcherManager> managers = new ArrayList<>();
+        List<IndexSearcher> acquired = new ArrayList<>();
+        try {
+            for (Map.Entry<String, Member> entry : members.entrySet()) {
+                acquired.add(entry.getValue().manager.acquire());
+                managers.add(entry.getValue().manager);
+                locations.add(entry.getKey());
+            }
+            return new Searcher(locations, managers, acquired);
+        } catch (IOException | RuntimeException e) {
+            for (int i = 0; i < acquired.size(); i++) {
+                managers.get(i).release(acquired.get(i));
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (String location : new ArrayList<>(members.keySet())) {
+            detach(location);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * The default slicing packs up to 5 segments and 250k documents into one slice, which puts
+     * whole small indexes on a single thread. Slice each index on its own instead, so there is
+     * at least one slice per index. Called from the IndexSearcher constructor, so the leaves are
+     * grouped by the index reader they belong to rather than by fields of {@link Searcher}.
+     */
+    private static IndexSearcher.LeafSlice[] slicesPerIndex(List<LeafReaderContext> leaves) {
+        Map<IndexReaderContext, List<LeafReaderContext>> byIndex = new LinkedHashMap<>();
+        for (LeafReaderContext leaf : leaves) {
+            byIndex.computeIfAbsent(leaf.parent, parent -> new ArrayList<>()).add(leaf);
+        }
+        List<IndexSearcher.LeafSlice> slices = new ArrayList<>();
+        for (List<LeafReaderContext> indexLeaves : byIndex.values()) {
+            slices.addAll(Arrays.asList(IndexSearcher.slices(indexLeaves, MAX_DOCS_PER_SLICE, MAX_SEGMENTS_PER_SLICE)));
+        }
+        return slices.toArray(new IndexSearcher.LeafSlice[0]);
+    }
+
+    /**
+     * One search over all indexes attached when it was acquired.
+     */
+    public class Searcher implements Closeable {
+        private final List<String> locations;
+        private final List<SearcherManager> managers;
+        private final List<IndexSearcher> searchers;
+        private final MultiReader reader;
+        private final IndexSearcher searcher;
+        private final int[] starts;
+
+        private Searcher(List<String> locations, List<SearcherManager> managers, List<IndexSearcher> searchers) throws IOException {
+            this.locations = locations;
+            this.managers = managers;
+            this.searchers = searchers;
+            IndexReader[] readers = new IndexReader[searchers.size()];
+            starts = new int[searchers.size()];
+            int maxDoc = 0;
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = searchers.get(i).getIndexReader();
+                starts[i] = maxDoc;
+                maxDoc += readers[i].maxDoc();
+            }
+            // the sub readers stay owned by their SearcherManager
+            reader = new MultiReader(readers, false);
+            searcher = new IndexSearcher(reader, executor) {
+                @Override
+                protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                    return slicesPerIndex(leaves);
+                }
+            };
+        }
+
+        public IndexSearcher getIndexSearcher() {
+            return searcher;
+        }
+
+        /**
+         * @return the number of indexes being searched
+         */
+        public int getIndexCount() {
+            return locations.size();
+        }
+
+        /**
+         * @param docId a document id from {@link #getIndexSearcher()}
+         * @return the index folder the document comes from
+         */
+        public String locationOf(int docId) {
+            int i = Arrays.binarySearch(starts, docId);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            // several empty indexes share a start, the document belongs to the last of them
+            while (i + 1 < starts.length && starts[i + 1] == starts[i]) {
+                i++;
+            }
+            return locations.get(i);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+            for (int i = 0; i < searchers.size(); i++) {
+                managers.get(i).release(searchers.get(i));
+            }
+        }
+    }
+}
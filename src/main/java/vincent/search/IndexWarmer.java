@@ -0,0 +1,133 @@
+package vincent.search;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Gets a freshly opened index ready for its first query.
+ * <p>
+ * The term dictionary and norms files are preloaded into the page cache when the index is
+ * memory mapped, then every segment's terms and norms are walked and the configured warm-up
+ * queries are run so the JIT has compiled the search path before a user needs it.
+ */
+public class IndexWarmer {
+
+    public static final String WARMUP_QUERIES_PROPERTY = "warmup.queries";
+    public static final String FIRST_QUERY_TARGET_MS_PROPERTY = "startup.firstQueryTargetMs";
+
+    private static final long DEFAULT_FIRST_QUERY_TARGET_MS = 3000;
+    // stop walking a segment's terms here, the preload has already paged the rest in
+    private static final int MAX_TERMS_PER_SEGMENT = 100_000;
+
+    private final List<String> queries;
+    private final long firstQueryTargetMs;
+
+    /**
+     * @param queries            queries in QueryParser syntax to replay after opening
+     * @param firstQueryTargetMs how soon after JVM start the index should be opened and warmed,
+     *                           and how long the first query itself may take
+     */
+    public IndexWarmer(List<String> queries, long firstQueryTargetMs) {
+        this.queries = queries;
+        this.firstQueryTargetMs = firstQueryTargetMs;
+    }
+
+    public IndexWarmer() {
+        this(new ArrayList<>(), DEFAULT_FIRST_QUERY_TARGET_MS);
+    }
+
+    /**
+     * Reads the warm-up queries, separated by ';', and the first query target from config.properties.
+     */
+    public static IndexWarmer fromProperties(Properties properties) {
+        List<String> queries = new ArrayList<>();
+        for (String query : properties.getProperty(WARMUP_QUERIES_PROPERTY, "").split(";")) {
+            if (!query.trim().isEmpty()) {
+                queries.add(query.trim());
+            }
+        }
+        long target = DEFAULT_FIRST_QUERY_TARGET_MS;
+        String value = properties.getProperty(FIRST_QUERY_TARGET_MS_PROPERTY);
+        if (value != null && !value.trim().isEmpty()) {
+            try {
+                target = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoring " + FIRST_QUERY_TARGET_MS_PROPERTY + "=" + value + ", using " + target);
+            }
+        }
+        return new IndexWarmer(queries, target);
+    }
+
+    /**
+     * Opens the index folder, asking a memory mapped directory to preload the term dictionary
+     * and norms when their files are opened.
+     *
+     * @param path the index folder
+     * @return the directory
+     * @throws IOException when exception opening the folder
+     */
+    public static FSDirectory openDirectory(Path path) throws IOException {
+        FSDirectory dir = FSDirectory.open(path);
+        if (dir instanceof MMapDirectory) {
+            ((MMapDirectory) dir).setPreload((name, context) ->
+                    name.endsWith(".tim") || name.endsWith(".tip") || name.endsWith(".tmd")
+                            || name.endsWith(".nvd") || name.endsWith(".nvm"));
+        }
+        return dir;
+    }
+
+    /**
+     * Touches the terms and norms of every segment and replays the warm-up queries.
+     *
+     * @param searcher the searcher to warm
+     * @param analyzer the analyzer the queries are parsed with
+     * @throws IOException when exception reading the index
+     */
+    public void warm(IndexSearcher searcher, Analyzer analyzer) throws IOException {
+        long start = System.nanoTime();
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            Terms terms = leaf.reader().terms("contents");
+            if (terms != null) {
+                TermsEnum termsEnum = terms.iterator();
+                for (int i = 0; i < MAX_TERMS_PER_SEGMENT && termsEnum.next() != null; i++) {
+                    termsEnum.docFreq();
+                }
+            }
+            NumericDocValues norms = leaf.reader().getNormValues("contents");
+            if (norms != null) {
+                while (norms.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    norms.longValue();
+                }
+            }
+        }
+        for (String query : queries) {
+            try {
+                for (ScoreDoc hit : searcher.search(new QueryParser("contents", analyzer).parse(query), 5).scoreDocs) {
+                    searcher.storedFields().document(hit.doc);
+                }
+            } catch (Exception e) {
+                System.out.println("Could not run warm-up query " + query + " : " + e.getMessage());
+            }
+        }
+        System.out.println("Index warmed in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    public long getFirstQueryTargetMs() {
+        return firstQueryTargetMs;
+    }
+}
@@ -0,0 +1,117 @@
+package vincent.search;
+
+import org.apache.lucene.index.IndexWriterConfig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps ingest within a fixed amount of heap.
+ * <p>
+ * Three limits work together: a byte budget shared by every chunk that has been read but not
+ * yet handed to the {@link org.apache.lucene.index.IndexWriter} (the file reader blocks once it
+ * is spent), a cap on the size of one chunk so a file without line breaks cannot become one
+ * giant document, and the writer's own RAM buffer, after which it flushes a segment to disk.
+ * Worst case ingest heap is therefore roughly {@code inFlightMB + ramBufferMB}.
+ */
+public class IngestMemoryGovernor {
+
+    public static final String IN_FLIGHT_MB_PROPERTY = "ingest.inFlightMB";
+    public static final String MAX_CHUNK_KB_PROPERTY = "ingest.maxChunkKB";
+    public static final String RAM_BUFFER_MB_PROPERTY = "ingest.ramBufferMB";
+
+    private static final int DEFAULT_IN_FLIGHT_MB = 32;
+    private static final int DEFAULT_MAX_CHUNK_KB = 256;
+    private static final int DEFAULT_RAM_BUFFER_MB = 16;
+
+    private final Semaphore budget;
+    private final int budgetBytes;
+    private final int maxChunkChars;
+    private final int ramBufferMB;
+
+    /**
+     * @param inFlightMB  bytes of chunks that may wait for the writer at once
+     * @param maxChunkKB  largest chunk, oversized lines are split to fit
+     * @param ramBufferMB writer RAM buffer before it flushes a segment
+     */
+    public IngestMemoryGovernor(int inFlightMB, int maxChunkKB, int ramBufferMB) {
+        // Semaphore permits are ints, one permit per byte
+        this.budgetBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(1, inFlightMB) * 1024L * 1024L);
+        // a chunk is held as UTF-16, two bytes per char, and must fit in the budget on its own
+        this.maxChunkChars = (int) Math.min(budgetBytes / 2, Math.max(1, maxChunkKB) * 1024L / 2);
+        this.ramBufferMB = Math.max(1, ramBufferMB);
+        this.budget = new Semaphore(budgetBytes, true);
+    }
+
+    public IngestMemoryGovernor() {
+        this(DEFAULT_IN_FLIGHT_MB, DEFAULT_MAX_CHUNK_KB, DEFAULT_RAM_BUFFER_MB);
+    }
+
+    /**
+     * Reads the limits from config.properties, falling back to the defaults.
+     */
+    public static IngestMemoryGovernor fromProperties(Properties properties) {
+        return new IngestMemoryGovernor(
+                intProperty(properties, IN_FLIGHT_MB_PROPERTY, DEFAULT_IN_FLIGHT_MB),
+                intProperty(properties, MAX_CHUNK_KB_PROPERTY, DEFAULT_MAX_CHUNK_KB),
+                intProperty(properties, RAM_BUFFER_MB_PROPERTY, DEFAULT_RAM_BUFFER_MB));
+    }
+
+    private static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring " + name + "=" + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Sizes the writer's RAM buffer from this governor so flushes happen before the heap fills.
+     *
+     * @param config the writer config to adjust
+     * @return the same config
+     */
+    public IndexWriterConfig configure(IndexWriterConfig config) {
+        config.setRAMBufferSizeMB(ramBufferMB);
+        config.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+        config.setRAMPerThreadHardLimitMB(Math.min(ramBufferMB, 2047));
+        return config;
+    }
+
+    /**
+     * Blocks until the chunk fits in the in-flight budget.
+     *
+     * @param chunk the text about to be queued for the writer
+     * @return the permits taken, to be given back with {@link #release(int)}
+     * @throws IOException when interrupted while waiting
+     */
+    public int acquire(String chunk) throws IOException {
+        int bytes = Math.min(budgetBytes, Math.max(1, chunk.length() * 2));
+        try {
+            budget.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for ingest memory");
+        }
+        return bytes;
+    }
+
+    public void release(int bytes) {
+        budget.release(bytes);
+    }
+
+    public int getMaxChunkChars() {
+        return maxChunkChars;
+    }
+
+    public int getRamBufferMB() {
+        return ramBufferMB;
+    }
+}
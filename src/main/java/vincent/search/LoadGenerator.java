@@ -0,0 +1,454 @@
+package vincent.search;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * run it: mvn exec:java -Dexec.mainClass="vincent.search.LoadGenerator" -Dexec.args="--index /tmp/load/index --corpus /tmp/load/corpus --generate 2000 --fresh-index true --qps 200 --clients 16 --duration 60"
+ * <p>
+ * This terminal application replays queries against {@link TextFileIndexerForUI#searchForProfile} at a
+ * fixed rate from many client threads while another thread keeps indexing new files, and prints
+ * throughput, latency percentiles and GC pauses for every report interval and for the whole run.
+ * <p>
+ * Queries are scheduled open loop: each one has an intended start time and its latency is measured
+ * from then, so time spent queued behind slow queries counts against the result instead of being
+ * hidden by clients that fell behind. Queries that fail, e.g. because they do not parse, are counted
+ * as errors. When {@code --max-p99-ms} or {@code --max-error-rate} is given the exit code is 1 if the
+ * overall p99 exceeds it or more queries failed than allowed, so the run can gate a build.
+ * <p>
+ * Options, all optional except --index:
+ * <pre>
+ * --index DIR             index folder, created if needed
+ * --corpus DIR            text files to index before the run (default: a temp folder)
+ * --generate N            write N generated files into the corpus first (default 0)
+ * --queries FILE          query log, one QueryParser query per line (default: generated)
+ * --qps N                 target queries per second (default 50)
+ * --clients N             concurrent client threads (default 8)
+ * --duration SECONDS      measured run length (default 30)
+ * --warmup SECONDS        unmeasured run before it (default 5)
+ * --report-interval SECONDS  (default 5)
+ * --ingest-files N        files written and indexed per ingest round, 0 for no ingest (default 20)
+ * --ingest-dir DIR        where ingest rounds are written, emptied first (default: a new temp folder)
+ * --fresh-index true      delete the documents already in the index before indexing the corpus
+ * --max-p99-ms N          fail when the overall p99 is higher
+ * --max-error-rate R      fail when more than this fraction of the queries failed
+ *                         (default 0, any error fails the run, when one of the two limits is given)
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final int VOCABULARY_SIZE = 5000;
+    private static final int LINES_PER_FILE = 200;
+    private static final int WORDS_PER_LINE = 12;
+    private static final String[] SYLLABLES = {"ka", "lo", "mi", "ne", "ru", "ta", "shi", "vo", "ze", "pa",
+            "qui", "do", "fe", "gu", "ha", "jo", "xe", "bi", "co", "wy"};
+
+    private final Random random = new Random(42);
+    private final String[] vocabulary = new String[VOCABULARY_SIZE];
+    private final double[] zipf = new double[VOCABULARY_SIZE];
+
+    private final Recorder interval = new Recorder();
+    private final Recorder overall = new Recorder();
+    private final AtomicLong intervalErrors = new AtomicLong();
+    private final AtomicLong overallErrors = new AtomicLong();
+    private final AtomicLong ingestedFiles = new AtomicLong();
+    private final List<Long> intervalGcPauses = new ArrayList<>();
+    private final List<Long> overallGcPauses = new ArrayList<>();
+    // only for the GC listener, queries know which phase they were issued in
+    private final AtomicBoolean measuring = new AtomicBoolean();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (!options.containsKey("index")) {
+            System.out.println("Usage: see the LoadGenerator class comment, --index is required");
+            System.exit(-1);
+        }
+        System.exit(new LoadGenerator().run(options));
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    LoadGenerator() {
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            StringBuilder word = new StringBuilder();
+            int n = i;
+            do {
+                word.append(SYLLABLES[n % SYLLABLES.length]);
+                n /= SYLLABLES.length;
+            } while (n > 0);
+            vocabulary[i] = word.toString();
+            // word frequencies in text roughly follow Zipf's law
+            sum += 1.0 / (i + 1);
+            zipf[i] = sum;
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            zipf[i] /= sum;
+        }
+    }
+
+    int run(Map<String, String> options) throws Exception {
+        PrintStream out = System.out;
+        File corpus = new File(options.getOrDefault("corpus",
+                new File(System.getProperty("java.io.tmpdir"), "load-corpus").getPath()));
+        int generate = intOption(options, "generate", 0);
+        int qps = intOption(options, "qps", 50);
+        int clients = intOption(options, "clients", 8);
+        int duration = intOption(options, "duration", 30);
+        int warmup = intOption(options, "warmup", 5);
+        int reportInterval = intOption(options, "report-interval", 5);
+        int ingestFiles = intOption(options, "ingest-files", 20);
+        // kept out of the corpus, so a later run does not index the previous run's rounds up front
+        File ingestDir = options.containsKey("ingest-dir")
+                ? new File(options.get("ingest-dir")) : Files.createTempDirectory("load-ingest").toFile();
+        deleteRounds(ingestDir);
+
+        if (Boolean.parseBoolean(options.get("fresh-index"))) {
+            out.println("Emptying " + options.get("index"));
+            try (FSDirectory dir = FSDirectory.open(new File(options.get("index")).toPath());
+                 IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.CREATE))) {
+                writer.commit();
+            }
+        }
+        if (generate > 0) {
+            out.println("Generating " + generate + " files in " + corpus);
+            generateFiles(new File(corpus, "base"), generate);
+        }
+        List<String> queries = options.containsKey("queries")
+                ? readQueries(options.get("queries")) : generateQueries(500);
+
+        // the searcher and indexer report every hit on the console, which would dominate the run
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        TextFileIndexerForUI indexer = new TextFileIndexerForUI(options.get("index"));
+        try {
+            if (corpus.exists()) {
+                long start = System.nanoTime();
+                indexer.indexFileOrDirectoryWithChunk(corpus.getPath());
+                out.println("Indexed " + corpus + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            listenForGcPauses();
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread ingest = new Thread(() -> ingest(indexer, ingestDir, ingestFiles, running, out), "load-ingest");
+            if (ingestFiles > 0) {
+                ingest.start();
+            }
+
+            ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+            out.println("Warming up for " + warmup + " s");
+            replay(indexer, queries, qps, warmup, 0, false, clientThreads, out);
+            measuring.set(true);
+            out.println(String.format("%8s %8s %8s %8s %8s %8s %7s %6s %8s %8s %7s",
+                    "time s", "qps", "p50 ms", "p95 ms", "p99 ms", "p999 ms", "errors", "gcs", "gcmax ms", "gcsum ms", "ingest"));
+            int reported = replay(indexer, queries, qps, duration, reportInterval, true, clientThreads, out);
+
+            // stop ingesting first, so the ingest count covers the measured window only
+            running.set(false);
+            clientThreads.shutdown();
+            long unfinished = 0;
+            if (!clientThreads.awaitTermination(1, TimeUnit.MINUTES)) {
+                // the queries still queued are the slowest of the run, leaving them out would flatter the p99
+                unfinished = clientThreads.shutdownNow().size();
+                intervalErrors.addAndGet(unfinished);
+                overallErrors.addAndGet(unfinished);
+                clientThreads.awaitTermination(10, TimeUnit.SECONDS);
+                out.println(unfinished + " queries were still queued a minute after the run, counted as failed");
+            }
+            ingest.join();
+            if (reportInterval > 0 && reported < duration) {
+                // the interval cut short by the end of the run
+                report(out, Integer.toString(duration), interval.drain(), intervalErrors.getAndSet(0),
+                        intervalGcPauses, duration - reported);
+            }
+            long[] latencies = overall.drain();
+            report(out, "total", latencies, overallErrors.get(), overallGcPauses, duration);
+
+            int result = 0;
+            if (options.containsKey("max-p99-ms")) {
+                double p99 = percentile(latencies, 0.99);
+                if (p99 > Double.parseDouble(options.get("max-p99-ms"))) {
+                    out.println("FAILED: p99 " + format(p99) + " ms is above " + options.get("max-p99-ms") + " ms");
+                    result = 1;
+                }
+            }
+            if (options.containsKey("max-p99-ms") || options.containsKey("max-error-rate")) {
+                double maxErrorRate = options.containsKey("max-error-rate") ? Double.parseDouble(options.get("max-error-rate")) : 0;
+                long issued = latencies.length + unfinished;
+                double errorRate = issued == 0 ? 0 : overallErrors.get() / (double) issued;
+                if (errorRate > maxErrorRate) {
+                    out.println("FAILED: " + overallErrors.get() + " of " + issued + " queries failed, error rate "
+                            + String.format("%.4f", errorRate) + " is above " + maxErrorRate);
+                    result = 1;
+                }
+            }
+            return result;
+        } finally {
+            indexer.close();
+            System.setOut(out);
+            if (!options.containsKey("ingest-dir")) {
+                deleteRounds(ingestDir);
+                ingestDir.delete();
+            }
+        }
+    }
+
+    /**
+     * Issues queries at the target rate for a number of seconds, each from a client thread.
+     *
+     * @param measured whether the queries count towards the results, decided here rather than when
+     *                 they finish so warm-up queries still running after the warm-up are left out
+     * @return the seconds covered by the interval reports printed so far
+     */
+    private int replay(TextFileIndexerForUI indexer, List<String> queries, int qps, int seconds,
+                       int reportInterval, boolean measured, ExecutorService clientThreads, PrintStream out) {
+        long intervalNanos = 1_000_000_000L / Math.max(1, qps);
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        long nextReport = start + reportInterval * 1_000_000_000L;
+        for (long i = 0; ; i++) {
+            long intended = start + i * intervalNanos;
+            if (intended >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            // the interval ending with the run is reported by the caller, once its queries have finished
+            if (reportInterval > 0 && now >= nextReport && nextReport < end) {
+                report(out, Long.toString((nextReport - start) / 1_000_000_000L), interval.drain(),
+                        intervalErrors.getAndSet(0), intervalGcPauses, reportInterval);
+                nextReport += reportInterval * 1_000_000_000L;
+            }
+            String query = queries.get(random.nextInt(queries.size()));
+            clientThreads.execute(() -> {
+                boolean failed;
+                try {
+                    failed = indexer.searchForProfile(query, null).getError() != null;
+                } catch (Exception e) {
+                    failed = true;
+                }
+                long latency = System.nanoTime() - intended;
+                if (measured) {
+                    interval.add(latency);
+                    overall.add(latency);
+                    if (failed) {
+                        intervalErrors.incrementAndGet();
+                        overallErrors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        return reportInterval > 0 ? (int) ((nextReport - start) / 1_000_000_000L) - reportInterval : 0;
+    }
+
+    private void report(PrintStream out, String label, long[] latencies, long errors, List<Long> gcPauses, int seconds) {
+        long gcCount;
+        long gcMax = 0;
+        long gcSum = 0;
+        synchronized (intervalGcPauses) {
+            gcCount = gcPauses.size();
+            for (long pause : gcPauses) {
+                gcMax = Math.max(gcMax, pause);
+                gcSum += pause;
+            }
+            gcPauses.clear();
+        }
+        out.println(String.format("%8s %8.1f %8s %8s %8s %8s %7d %6d %8d %8d %7d",
+                label, latencies.length / (double) seconds,
+                format(percentile(latencies, 0.50)), format(percentile(latencies, 0.95)),
+                format(percentile(latencies, 0.99)), format(percentile(latencies, 0.999)),
+                errors, gcCount, gcMax, gcSum, ingestedFiles.get()));
+    }
+
+    private static double percentile(long[] sortedNanos, double p) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, rank)] / 1_000_000.0;
+    }
+
+    private static String format(double millis) {
+        return String.format("%.2f", millis);
+    }
+
+    /**
+     * Keeps writing and indexing fresh files until stopped, committing after every round.
+     */
+    private void ingest(TextFileIndexerForUI indexer, File folder, int files, AtomicBoolean running, PrintStream out) {
+        for (int round = 0; running.get(); round++) {
+            File batch = new File(folder, "round-" + round);
+            try {
+                generateFiles(batch, files);
+                indexer.indexFileOrDirectoryWithChunk(batch.getPath());
+                ingestedFiles.addAndGet(files);
+            } catch (IOException e) {
+                out.println("Ingest round " + round + " failed : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deletes the rounds a previous run left in the ingest folder.
+     */
+    private static void deleteRounds(File folder) {
+        File[] rounds = folder.listFiles((dir, name) -> name.startsWith("round-"));
+        if (rounds == null) {
+            return;
+        }
+        for (File round : rounds) {
+            File[] files = round.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            round.delete();
+        }
+    }
+
+    private void listenForGcPauses() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (!measuring.get() || !GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                // concurrent cycles run next to the application and are not pauses
+                if (info.getGcName().contains("Concurrent") || info.getGcName().contains("Cycles")) {
+                    return;
+                }
+                synchronized (intervalGcPauses) {
+                    intervalGcPauses.add(info.getGcInfo().getDuration());
+                    overallGcPauses.add(info.getGcInfo().getDuration());
+                }
+            }, null, null);
+        }
+    }
+
+    private void generateFiles(File folder, int files) throws IOException {
+        folder.mkdirs();
+        for (int f = 0; f < files; f++) {
+            try (PrintWriter writer = new PrintWriter(new File(folder, "doc-" + f + ".txt"))) {
+                for (int line = 0; line < LINES_PER_FILE; line++) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int w = 0; w < WORDS_PER_LINE; w++) {
+                        sb.append(nextWord()).append(' ');
+                    }
+                    writer.println(sb);
+                }
+            }
+        }
+    }
+
+    private String nextWord() {
+        int i = Arrays.binarySearch(zipf, random.nextDouble());
+        return vocabulary[Math.min(VOCABULARY_SIZE - 1, i < 0 ? -i - 1 : i)];
+    }
+
+    /**
+     * A mix of the query shapes users type: single terms, two terms, phrases and prefixes.
+     */
+    private List<String> generateQueries(int count) {
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            switch (i % 4) {
+                case 0:
+                    queries.add(nextWord());
+                    break;
+                case 1:
+                    queries.add(nextWord() + " AND " + nextWord());
+                    break;
+                case 2:
+                    queries.add("\"" + nextWord() + " " + nextWord() + "\"");
+                    break;
+                default:
+                    String word = nextWord();
+                    queries.add(word.substring(0, Math.min(3, word.length())) + "*");
+            }
+        }
+        return queries;
+    }
+
+    private static List<String> readQueries(String file) throws IOException {
+        List<String> queries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    queries.add(line.trim());
+                }
+            }
+        }
+        if (queries.isEmpty()) {
+            throw new IOException(file + " holds no queries");
+        }
+        return queries;
+    }
+
+    /**
+     * Latencies of the queries finished since the last drain.
+     */
+    private static class Recorder {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        /**
+         * @return the latencies, sorted, and forgets them
+         */
+        synchronized long[] drain() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            size = 0;
+            return sorted;
+        }
+    }
+}
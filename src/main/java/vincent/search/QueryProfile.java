@@ -0,0 +1,195 @@
+package vincent.search;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.FilterWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+
+/**
+ * Where the time of one search went.
+ * <p>
+ * Filled in by {@link TextFileIndexerForUI#search(String, java.util.Map, boolean)} for every
+ * query, printed with the results in profile mode and written to the {@link SlowQueryLog}
+ * when the query was slow. {@link TextFileIndexerForUI#searchForProfile(String, java.util.Map)}
+ * hands it to callers that need to know whether the query failed.
+ */
+public class QueryProfile {
+
+    public enum Phase {
+        /** getting a searcher over every attached index, waiting if they are being reopened */
+        ACQUIRE,
+        /** QueryParser.parse */
+        PARSE,
+        /** rewriting to primitive queries, e.g. fuzzy queries into their best matching terms */
+        REWRITE,
+        /**
+         * creating the weight and each segment's scorer; wildcard and prefix queries expand their
+         * terms here. Summed over segments, so with concurrent slices it is thread time, not wall time
+         */
+        WEIGHT,
+        /** scoring and collecting the top hits and facet counts, not counting {@link #WEIGHT} */
+        SEARCH,
+        /** loading stored fields of the top hits */
+        LOAD,
+        /** highlighting the top hits */
+        HIGHLIGHT,
+        /** sorting and formatting the facet counts */
+        FACETS
+    }
+
+    private final String query;
+    private final long[] nanos = new long[Phase.values().length];
+    private String rewrittenQuery;
+    private int hitCount;
+    private String error;
+
+    public QueryProfile(String query) {
+        this.query = query;
+    }
+
+    synchronized void add(Phase phase, long elapsedNanos) {
+        nanos[phase.ordinal()] += elapsedNanos;
+    }
+
+    void setRewrittenQuery(String rewrittenQuery) {
+        this.rewrittenQuery = rewrittenQuery;
+    }
+
+    void setHitCount(int hitCount) {
+        this.hitCount = hitCount;
+    }
+
+    void setError(Exception e) {
+        this.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getRewrittenQuery() {
+        return rewrittenQuery;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return why the search failed, e.g. a query that does not parse, or null when it succeeded
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Wraps an already rewritten query so creating its weight and scorers is timed as {@link Phase#WEIGHT}.
+     */
+    Query timeWeights(Query query) {
+        return new TimedQuery(query, this);
+    }
+
+    public synchronized long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public synchronized long getTotalNanos() {
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * @return the phase timings in milliseconds, e.g. "acquire=0.01ms parse=0.12ms ... total=5.01ms"
+     */
+    public String timings() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            sb.append(phase.name().toLowerCase()).append('=').append(millis(getNanos(phase))).append("ms ");
+        }
+        sb.append("total=").append(millis(getTotalNanos())).append("ms");
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1_000_000.0);
+    }
+
+    @Override
+    public String toString() {
+        return "query=" + query + " rewritten=" + rewrittenQuery + " hits=" + hitCount + " " + timings()
+                + (error == null ? "" : " error=" + error);
+    }
+
+    private static class TimedQuery extends Query {
+        private final Query in;
+        private final QueryProfile profile;
+
+        TimedQuery(Query in, QueryProfile profile) {
+            this.in = in;
+            this.profile = profile;
+        }
+
+        @Override
+        public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+            long start = System.nanoTime();
+            Weight weight = searcher.createWeight(in, scoreMode, boost);
+            profile.add(Phase.WEIGHT, System.nanoTime() - start);
+            return new FilterWeight(this, weight) {
+                @Override
+                public Scorer scorer(LeafReaderContext context) throws IOException {
+                    long start = System.nanoTime();
+                    try {
+                        return in.scorer(context);
+                    } finally {
+                        profile.add(Phase.WEIGHT, System.nanoTime() - start);
+                    }
+                }
+
+                @Override
+                public BulkScorer bulkScorer(LeafReaderContext context) throws IOException {
+                    long start = System.nanoTime();
+                    try {
+                        return in.bulkScorer(context);
+                    } finally {
+                        profile.add(Phase.WEIGHT, System.nanoTime() - start);
+                    }
+                }
+
+                @Override
+                public int count(LeafReaderContext context) throws IOException {
+                    return in.count(context);
+                }
+            };
+        }
+
+        @Override
+        public void visit(QueryVisitor visitor) {
+            in.visit(visitor);
+        }
+
+        @Override
+        public String toString(String field) {
+            return in.toString(field);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return sameClassAs(other) && in.equals(((TimedQuery) other).in);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * classHash() + in.hashCode();
+        }
+    }
+}
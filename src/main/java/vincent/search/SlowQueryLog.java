@@ -0,0 +1,63 @@
+package vincent.search;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.Properties;
+
+/**
+ * Appends queries slower than a threshold, with their {@link QueryProfile}, to a log file.
+ */
+public class SlowQueryLog {
+
+    public static final String THRESHOLD_MS_PROPERTY = "slowlog.thresholdMs";
+    public static final String FILE_PROPERTY = "slowlog.file";
+
+    private static final long DEFAULT_THRESHOLD_MS = 500;
+    private static final String DEFAULT_FILE = "slow-queries.log";
+
+    private final long thresholdNanos;
+    private final String file;
+
+    /**
+     * @param thresholdMs queries taking at least this long are logged, negative to log nothing
+     * @param file        the log file, appended to
+     */
+    public SlowQueryLog(long thresholdMs, String file) {
+        this.thresholdNanos = thresholdMs < 0 ? Long.MAX_VALUE : thresholdMs * 1_000_000;
+        this.file = file;
+    }
+
+    /**
+     * Reads the threshold and log file from config.properties, falling back to the defaults.
+     */
+    public static SlowQueryLog fromProperties(Properties properties) {
+        long threshold = DEFAULT_THRESHOLD_MS;
+        String value = properties.getProperty(THRESHOLD_MS_PROPERTY);
+        if (value != null && !value.trim().isEmpty()) {
+            try {
+                threshold = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                System.out.println("Ignoring " + THRESHOLD_MS_PROPERTY + "=" + value + ", using " + threshold);
+            }
+        }
+        return new SlowQueryLog(threshold, properties.getProperty(FILE_PROPERTY, DEFAULT_FILE));
+    }
+
+    /**
+     * Logs the query if it was slow.
+     *
+     * @param profile the finished query
+     */
+    public synchronized void record(QueryProfile profile) {
+        if (profile.getTotalNanos() < thresholdNanos) {
+            return;
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            out.println(LocalDateTime.now() + " " + profile);
+        } catch (IOException e) {
+            System.out.println("Could not write slow query log " + file + " : " + e.getMessage());
+        }
+    }
+}
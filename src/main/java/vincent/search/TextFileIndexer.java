@@ -37,6 +37,7 @@ public class TextFileIndexer {
 
     private IndexWriter writer;
     private List<File> queue = new ArrayList();
+    private IngestMemoryGovernor governor = new IngestMemoryGovernor();
 
 
     public static void main(String[] args) throws IOException {
@@ -145,7 +146,7 @@ public class TextFileIndexer {
         FSDirectory dir = FSDirectory.open(new File(indexDir).toPath());
 
 
-        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        IndexWriterConfig config = governor.configure(new IndexWriterConfig(analyzer));
 
         writer = new IndexWriter(dir, config);
     }
@@ -162,73 +163,14 @@ public class TextFileIndexer {
         //the name of a folder) or gets a single file name (is user
         //has submitted only the file name)
         //===================================================
-        addFiles(new File(fileName));
-
         int originalNumDocs = writer.getDocStats().numDocs;
-        for (File f : queue) {
-            //FileReader fr = null;
-            try {
-                //Document doc = new Document();
-
-                //===================================================
-                // add contents of file
-                //===================================================
-
-                // read the file line by line
-                try (BufferedReader reader = new BufferedReader(new FileReader(f))) {
-                    String line;
-                    StringBuilder paragraph = new StringBuilder();
-                    int lineNumber = 0;
-                    while ((line = reader.readLine()) != null) {
-                        lineNumber++;
-                        paragraph.append(line).append(" ");
-
-                        // index every 5 lines as a separate chunk
-                        if (lineNumber % 5 == 0) {
-                            Document doc = new Document();
-                            doc.add(new TextField("contents", paragraph.toString(), Field.Store.YES));
-                            doc.add(new StringField("path", f.getPath(), Field.Store.YES));
-                            doc.add(new StringField("filename", f.getName(), Field.Store.YES));
-                            doc.add(new StringField("lineNumber", Integer.toString(lineNumber), Field.Store.YES));
-                            writer.addDocument(doc);
-
-                            // reset paragraph
-                            paragraph.setLength(0);
-                        }
-                    }
-
-                    // don't forget the last paragraph if the total number of lines is not a multiple of 5
-                    if (paragraph.length() > 0) {
-                        Document doc = new Document();
-                        doc.add(new TextField("contents", paragraph.toString(), Field.Store.YES));
-                        doc.add(new StringField("path", f.getPath(), Field.Store.YES));
-                        doc.add(new StringField("filename", f.getName(), Field.Store.YES));
-                        doc.add(new StringField("lineNumber", Integer.toString(lineNumber), Field.Store.YES));
-                        writer.addDocument(doc);
-                    }
-                }
-
-				/*
-				fr = new FileReader(f);
-
-                doc.add(new TextField("contents", fr));
-                doc.add(new StringField("path", f.getPath(), Field.Store.YES));
-                doc.add(new StringField("filename", f.getName(), Field.Store.YES));
-
-                writer.addDocument(doc);*/
-                System.out.println("Added: " + f);
-            } catch (Exception e) {
-                System.out.println("Could not add: " + f);
-            }
-        }
+        new ChunkIndexer(writer, governor).indexFileOrDirectory(new File(fileName));
 
         int newNumDocs = writer.getDocStats().numDocs;
         System.out.println("");
         System.out.println("************************");
         System.out.println((newNumDocs - originalNumDocs) + " documents added.");
         System.out.println("************************");
-
-        queue.clear();
     }
 
     public void indexFileOrDirectory(String fileName) throws IOException {
@@ -241,6 +183,11 @@ public class TextFileIndexer {
 
         int originalNumDocs = writer.getDocStats().numDocs;
         for (File f : queue) {
+            if (f.length() > governor.getMaxChunkChars()) {
+                // too big to be held as one document, fall back to chunks
+                new ChunkIndexer(writer, governor).indexFileOrDirectory(f);
+                continue;
+            }
             FileReader fr = null;
             try {
                 Document doc = new Document();
@@ -252,6 +199,7 @@ public class TextFileIndexer {
                 doc.add(new TextField("contents", readFileString(f.getPath()), Field.Store.YES));
                 doc.add(new StringField("path", f.getPath(), Field.Store.YES));
                 doc.add(new StringField("filename", f.getName(), Field.Store.YES));
+                FacetFields.addFacetFields(doc, f);
 
                 writer.addDocument(doc);
                 System.out.println("Added: " + f);
@@ -7,28 +7,39 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollectorManager;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.highlight.*;
 import org.apache.lucene.store.FSDirectory;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class TextFileIndexerForUI {
     private static StandardAnalyzer analyzer = new StandardAnalyzer();
+    private static final int FACET_TOP_N = 10;
 
     public IndexWriter writer;
     public List<File> queue = new ArrayList();
     public TextFileIndexerForUI indexer;
     public String indexLocation;
+    private IngestMemoryGovernor governor;
+    private IndexWarmer warmer;
+    private FSDirectory directory;
+    private final FederatedSearcher federated = new FederatedSearcher();
+    private volatile boolean firstQueryDone;
+    private volatile boolean startupReported;
+    private SlowQueryLog slowQueryLog;
 
     /**
      * Constructor
@@ -37,41 +48,215 @@ public class TextFileIndexerForUI {
      * @throws java.io.IOException when exception creating index.
      */
     TextFileIndexerForUI(String indexDir) throws IOException {
-        // the boolean true parameter means to create a new index everytime,
-        // potentially overwriting any existing files there.
-        FSDirectory dir = FSDirectory.open(new File(indexDir).toPath());
+        this(indexDir, new IngestMemoryGovernor(), new IndexWarmer());
+    }
 
+    /**
+     * Constructor, opens the index for searching only. The writer, and with it the index
+     * write lock, is taken the first time something is indexed.
+     *
+     * @param indexDir the name of the folder in which the index should be created
+     * @param governor the memory limits for indexing
+     * @param warmer   what to preload and replay before the first query
+     * @throws java.io.IOException when exception creating index.
+     */
+    TextFileIndexerForUI(String indexDir, IngestMemoryGovernor governor, IndexWarmer warmer) throws IOException {
+        directory = IndexWarmer.openDirectory(new File(indexDir).toPath());
+        this.governor = governor;
+        this.warmer = warmer;
+        indexLocation = indexDir;
+    }
 
-        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+    private synchronized void openWriter() throws IOException {
+        if (writer != null) {
+            return;
+        }
+        // the index is created if it does not exist yet, otherwise documents are appended
+        IndexWriterConfig config = governor.configure(new IndexWriterConfig(analyzer));
 
-        writer = new IndexWriter(dir, config);
+        writer = new IndexWriter(directory, config);
+    }
 
-        indexLocation = indexDir;
+    /**
+     * @return the searcher over this index, once something has been indexed, and every attached index
+     */
+    private FederatedSearcher getFederatedSearcher() throws IOException {
+        // not on this, so searches do not wait for closeIndex to commit
+        synchronized (federated) {
+            if (!federated.isAttached(indexLocation) && DirectoryReader.indexExists(directory)) {
+                federated.attach(indexLocation, directory, false);
+            }
+        }
+        return federated;
+    }
+
+    /**
+     * Adds another index folder to every search, e.g. an older month kept on slower storage.
+     *
+     * @param location the index folder
+     * @throws java.io.IOException when the folder holds no index
+     */
+    public void attachIndex(String location) throws IOException {
+        if (FederatedSearcher.normalize(location).equals(FederatedSearcher.normalize(indexLocation))) {
+            throw new IllegalArgumentException(location + " is the index being written to, it is always searched");
+        }
+        federated.attach(location);
+    }
+
+    /**
+     * Stops searching an index folder added with {@link #attachIndex(String)}.
+     *
+     * @param location the index folder
+     * @return false if it was not attached
+     * @throws java.io.IOException when exception closing it
+     */
+    public boolean detachIndex(String location) throws IOException {
+        if (FederatedSearcher.normalize(location).equals(FederatedSearcher.normalize(indexLocation))) {
+            throw new IllegalArgumentException(location + " is the index being written to");
+        }
+        return federated.detach(location);
+    }
+
+    /**
+     * @return the index folders being searched
+     */
+    public List<String> getIndexLocations() {
+        return federated.getLocations();
+    }
+
+    /**
+     * Opens the indexes and warms them on a background thread so the first query finds them hot.
+     */
+    public void warmInBackground() {
+        Thread thread = new Thread(() -> {
+            try (FederatedSearcher.Searcher searcher = getFederatedSearcher().acquire()) {
+                if (searcher.getIndexCount() == 0) {
+                    return;
+                }
+                warmer.warm(searcher.getIndexSearcher(), analyzer);
+                if (!startupReported) {
+                    startupReported = true;
+                    reportAgainstTarget("Index opened and warmed", ManagementFactory.getRuntimeMXBean().getUptime(), "after start");
+                }
+            } catch (Exception e) {
+                System.out.println("Could not warm " + indexLocation + " : " + e.getMessage());
+            }
+        }, "index-warmer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param slowQueryLog where to log slow queries, null to log nothing
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Logs how long the first query on a non-empty index took by itself, not counting the time
+     * before it was asked.
+     */
+    private void recordFirstQuery(int indexCount, long elapsedNanos) {
+        if (firstQueryDone || indexCount == 0) {
+            return;
+        }
+        firstQueryDone = true;
+        reportAgainstTarget("First query answered", elapsedNanos / 1_000_000, "after it was asked");
+    }
+
+    private void reportAgainstTarget(String what, long millis, String since) {
+        long target = warmer.getFirstQueryTargetMs();
+        System.out.println(what + " " + millis + " ms " + since + " (target " + target + " ms)"
+                + (millis > target ? ", target missed" : ""));
     }
 
 
     public String search(String search) throws IOException {
+        return search(search, null);
+    }
+
+    /**
+     * Searches the index and counts where the matches cluster.
+     *
+     * @param search    the query in QueryParser syntax
+     * @param drillDown facet field to required value (see {@link FacetFields}), may be null
+     * @return the top hits followed by the facet counts of all matching chunks
+     * @throws java.io.IOException when exception opening the index
+     */
+    public String search(String search, Map<String, String> drillDown) throws IOException {
+        return search(search, drillDown, false);
+    }
+
+    /**
+     * Searches the index, timing each phase of the query. Queries slower than the
+     * {@link SlowQueryLog} threshold are logged whether or not profiling was asked for.
+     *
+     * @param search    the query in QueryParser syntax
+     * @param drillDown facet field to required value (see {@link FacetFields}), may be null
+     * @param profile   true to end the results with the phase timings and the rewritten query
+     * @return the top hits followed by the facet counts of all matching chunks
+     * @throws java.io.IOException when exception opening the index
+     */
+    public String search(String search, Map<String, String> drillDown, boolean profile) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        search(search, drillDown, profile, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Searches the index like {@link #search(String, Map)} but returns how it went instead of the
+     * results, so callers such as {@link LoadGenerator} can tell failed queries from empty ones.
+     *
+     * @param search    the query in QueryParser syntax
+     * @param drillDown facet field to required value (see {@link FacetFields}), may be null
+     * @return the phase timings, with {@link QueryProfile#getError()} set when the search failed
+     * @throws java.io.IOException when exception opening the index
+     */
+    public QueryProfile searchForProfile(String search, Map<String, String> drillDown) throws IOException {
+        return search(search, drillDown, false, new StringBuilder());
+    }
+
+    private QueryProfile search(String search, Map<String, String> drillDown, boolean profile, StringBuilder sb) throws IOException {
 
         //=========================================================
         // Now search
         //=========================================================
-        IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(indexLocation).toPath()));
-        IndexSearcher searcher = new IndexSearcher(reader);
+        long searchStart = System.nanoTime();
+        QueryProfile queryProfile = new QueryProfile(search);
+        FederatedSearcher.Searcher federatedSearcher = getFederatedSearcher().acquire();
+        queryProfile.add(QueryProfile.Phase.ACQUIRE, System.nanoTime() - searchStart);
+        IndexSearcher searcher = federatedSearcher.getIndexSearcher();
         //TopScoreDocCollector collector = TopScoreDocCollector.create(5, 20);
 
-        StringBuilder sb = new StringBuilder();
         try {
-            TopScoreDocCollector collector = TopScoreDocCollector.create(5, 20);
-
+            long start = System.nanoTime();
             Query q = new QueryParser("contents", analyzer).parse(search);
-            searcher.search(q, collector);
-            ScoreDoc[] hits = collector.topDocs().scoreDocs;
+            queryProfile.add(QueryProfile.Phase.PARSE, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            Query rewritten = searcher.rewrite(FacetFields.drillDown(q, drillDown));
+            queryProfile.add(QueryProfile.Phase.REWRITE, System.nanoTime() - start);
+            queryProfile.setRewrittenQuery(rewritten.toString());
+
+            start = System.nanoTime();
+            // one collector pair per slice, so the attached indexes are searched concurrently
+            Object[] results = searcher.search(queryProfile.timeWeights(rewritten), new MultiCollectorManager(
+                    TopScoreDocCollector.createSharedManager(5, null, 20), new FacetCollector.Manager()));
+            TopDocs topDocs = (TopDocs) results[0];
+            FacetCollector facets = (FacetCollector) results[1];
+            queryProfile.add(QueryProfile.Phase.SEARCH,
+                    Math.max(0, System.nanoTime() - start - queryProfile.getNanos(QueryProfile.Phase.WEIGHT)));
+            queryProfile.setHitCount(facets.getTotalHits());
+            ScoreDoc[] hits = topDocs.scoreDocs;
             System.out.println("hits" + hits);
             // 4. display results
             System.out.println("Found " + hits.length + " hits.");
             for (int i = 0; i < hits.length; ++i) {
                 int docId = hits[i].doc;
+                start = System.nanoTime();
                 Document d = searcher.doc(docId);
+                queryProfile.add(QueryProfile.Phase.LOAD, System.nanoTime() - start);
 
 //
 //                System.out.println((i + 1) + ". " + d.get("path") + " score=" + hits[i].score + " contents=" + d.get("contents"));
@@ -80,6 +265,7 @@ public class TextFileIndexerForUI {
 //                        + " score=" + hits[i].score
 //                        + " contents=\n" + d.get("contents"));
 
+                start = System.nanoTime();
                 String text = d.get("contents");
                 TokenStream tokenStream = TokenSources.getAnyTokenStream(searcher.getIndexReader(), docId, "contents", analyzer);
                 TextFragment[] frag = new Highlighter(new SimpleHTMLFormatter(), new QueryScorer(q))
@@ -87,6 +273,9 @@ public class TextFileIndexerForUI {
 
                 for (int j = 0; j < frag.length; j++) {
                     if ((frag[j] != null) && (frag[j].getScore() > 0)) {
+                        if (federatedSearcher.getIndexCount() > 1) {
+                            sb.append("[" + federatedSearcher.locationOf(docId) + "] ");
+                        }
                         sb.append((i + 1) + ". " + d.get("path") + " score=" + hits[i].score);
                         sb.append(System.lineSeparator());
                         sb.append("   line number : "+ d.get("lineNumber") + "     " + frag[j].toString());
@@ -96,11 +285,66 @@ public class TextFileIndexerForUI {
                         System.out.println((frag[j].toString()));
                     }
                 }
+                queryProfile.add(QueryProfile.Phase.HIGHLIGHT, System.nanoTime() - start);
+            }
+
+            start = System.nanoTime();
+            appendFacets(sb, facets, drillDown == null ? null : drillDown.get(FacetFields.DIR));
+            queryProfile.add(QueryProfile.Phase.FACETS, System.nanoTime() - start);
+            if (profile) {
+                sb.append("Rewritten query: " + queryProfile.getRewrittenQuery());
+                sb.append(System.lineSeparator());
+                sb.append("Timings: " + queryProfile.timings());
+                sb.append(System.lineSeparator());
             }
         } catch (Exception e) {
             System.out.println("Error searching " + search + " : " + e.getMessage());
+            queryProfile.setError(e);
+        } finally {
+            federatedSearcher.close();
+        }
+        if (slowQueryLog != null) {
+            slowQueryLog.record(queryProfile);
+        }
+        recordFirstQuery(federatedSearcher.getIndexCount(), System.nanoTime() - searchStart);
+        return queryProfile;
+    }
+
+    private static void appendFacets(StringBuilder sb, FacetCollector facets, String dir) throws IOException {
+        sb.append("Matched chunks: " + facets.getTotalHits());
+        sb.append(System.lineSeparator());
+        appendDirectories(sb, facets.getTopDirectories(dir, FACET_TOP_N));
+        appendFacet(sb, "Extensions", facets.getTopValues(FacetFields.EXTENSION, FACET_TOP_N));
+        appendFacet(sb, "Files", facets.getTopValues(FacetFields.FILENAME, FACET_TOP_N));
+    }
+
+    private static void appendDirectories(StringBuilder sb, FacetCollector.DirectoryCounts dirs) {
+        if (dirs.getCount() == 0) {
+            return;
+        }
+        sb.append("Directories under " + (dirs.getDirectory() == null ? "all roots" : dirs.getDirectory())
+                + " (" + dirs.getCount() + "):");
+        sb.append(System.lineSeparator());
+        if (dirs.getInDirectory() > 0) {
+            sb.append("   files in this directory (" + dirs.getInDirectory() + ")");
+            sb.append(System.lineSeparator());
+        }
+        for (Map.Entry<String, Integer> value : dirs.getChildren()) {
+            sb.append("   " + value.getKey() + " (" + value.getValue() + ")");
+            sb.append(System.lineSeparator());
+        }
+    }
+
+    private static void appendFacet(StringBuilder sb, String label, List<Map.Entry<String, Integer>> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        sb.append(label + ":");
+        sb.append(System.lineSeparator());
+        for (Map.Entry<String, Integer> value : values) {
+            sb.append("   " + value.getKey() + " (" + value.getValue() + ")");
+            sb.append(System.lineSeparator());
         }
-        return sb.toString();
     }
 
 
@@ -116,65 +360,9 @@ public class TextFileIndexerForUI {
         //the name of a folder) or gets a single file name (is user
         //has submitted only the file name)
         //===================================================
-        addFiles(new File(fileName));
-
+        openWriter();
         int originalNumDocs = writer.getDocStats().numDocs;
-        for (File f : queue) {
-            //FileReader fr = null;
-            try {
-                //Document doc = new Document();
-
-                //===================================================
-                // add contents of file
-                //===================================================
-
-                // read the file line by line
-                try (BufferedReader reader = new BufferedReader(new FileReader(f))) {
-                    String line;
-                    StringBuilder paragraph = new StringBuilder();
-                    int lineNumber = 0;
-                    while ((line = reader.readLine()) != null) {
-                        lineNumber++;
-                        paragraph.append(line).append(" ");
-
-                        // index every 5 lines as a separate chunk
-                        if (lineNumber % 5 == 0) {
-                            Document doc = new Document();
-                            doc.add(new TextField("contents", paragraph.toString(), Field.Store.YES));
-                            doc.add(new StringField("path", f.getPath(), Field.Store.YES));
-                            doc.add(new StringField("filename", f.getName(), Field.Store.YES));
-                            doc.add(new StringField("lineNumber", Integer.toString(lineNumber - 4), Field.Store.YES));
-                            writer.addDocument(doc);
-
-                            // reset paragraph
-                            paragraph.setLength(0);
-                        }
-                    }
-
-                    // don't forget the last paragraph if the total number of lines is not a multiple of 5
-                    if (paragraph.length() > 0) {
-                        Document doc = new Document();
-                        doc.add(new TextField("contents", paragraph.toString(), Field.Store.YES));
-                        doc.add(new StringField("path", f.getPath(), Field.Store.YES));
-                        doc.add(new StringField("filename", f.getName(), Field.Store.YES));
-                        doc.add(new StringField("lineNumber", Integer.toString(lineNumber), Field.Store.YES));
-                        writer.addDocument(doc);
-                    }
-                }
-
-				/*
-				fr = new FileReader(f);
-
-                doc.add(new TextField("contents", fr));
-                doc.add(new StringField("path", f.getPath(), Field.Store.YES));
-                doc.add(new StringField("filename", f.getName(), Field.Store.YES));
-
-                writer.addDocument(doc);*/
-                System.out.println("Added: " + f);
-            } catch (Exception e) {
-                System.out.println("Could not add: " + f);
-            }
-        }
+        new ChunkIndexer(writer, governor).indexFileOrDirectory(new File(fileName));
 
         int newNumDocs = writer.getDocStats().numDocs;
         System.out.println("");
@@ -183,8 +371,6 @@ public class TextFileIndexerForUI {
         System.out.println("************************");
 
         this.closeIndex();
-
-        queue.clear();
     }
 
     public void indexFileOrDirectory(String fileName) throws IOException {
@@ -195,8 +381,14 @@ public class TextFileIndexerForUI {
         //===================================================
         addFiles(new File(fileName));
 
+        openWriter();
         int originalNumDocs = writer.getDocStats().numDocs;
         for (File f : queue) {
+            if (f.length() > governor.getMaxChunkChars()) {
+                // too big to be held as one document, fall back to chunks
+                new ChunkIndexer(writer, governor).indexFileOrDirectory(f);
+                continue;
+            }
             FileReader fr = null;
             try {
                 Document doc = new Document();
@@ -208,6 +400,7 @@ public class TextFileIndexerForUI {
                 doc.add(new TextField("contents", readFileString(f.getPath()), Field.Store.YES));
                 doc.add(new StringField("path", f.getPath(), Field.Store.YES));
                 doc.add(new StringField("filename", f.getName(), Field.Store.YES));
+                FacetFields.addFacetFields(doc, f);
 
                 writer.addDocument(doc);
                 System.out.println("Added: " + f);
@@ -280,8 +473,24 @@ public class TextFileIndexerForUI {
      *
      * @throws java.io.IOException when exception closing
      */
-    public void closeIndex() throws IOException {
-        writer.close();
+    public synchronized void closeIndex() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        // let searches see what was just committed
+        getFederatedSearcher().maybeRefresh();
+    }
+
+    /**
+     * Close the index and the searcher, releasing the folder.
+     *
+     * @throws java.io.IOException when exception closing
+     */
+    public synchronized void close() throws IOException {
+        closeIndex();
+        federated.close();
+        directory.close();
     }
 
 }
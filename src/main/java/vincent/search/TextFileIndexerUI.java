@@ -7,6 +7,10 @@ import java.awt.event.ActionListener;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 public class TextFileIndexerUI {
@@ -14,6 +18,7 @@ public class TextFileIndexerUI {
     private TextFileIndexerForUI indexer;
     private static final String PROPERTIES_FILE_PATH = "config.properties";
     private static final String INDEX_DIR_PROPERTY = "indexDir";
+    private static final String FEDERATED_INDEX_DIRS_PROPERTY = "federated.indexDirs";
 
     private Properties properties;
     private String indexDir;
@@ -44,10 +49,13 @@ public class TextFileIndexerUI {
         indexButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 try {
-                    indexer = new TextFileIndexerForUI(indexField.getText());
+                    if (indexer != null) {
+                        indexer.close();
+                    }
+                    indexer = openIndexer(indexField.getText());
                     indexDir = indexField.getText();
                     saveProperties();
-                    JOptionPane.showMessageDialog(frame, "Index created successfully");
+                    JOptionPane.showMessageDialog(frame, "Index opened successfully");
                 } catch (Exception ex) {
                     JOptionPane.showMessageDialog(frame, "Error creating index: " + ex.getMessage());
                 }
@@ -77,10 +85,47 @@ public class TextFileIndexerUI {
         filePanel.add(fileButton);
         mainPanel.add(filePanel);
 
+        // Add federated index panel, other index folders searched together with this one
+        JPanel federatedPanel = new JPanel();
+        JTextField federatedField = new JTextField(30);
+        JButton attachButton = new JButton("Attach");
+        attachButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                try {
+                    indexer.attachIndex(federatedField.getText());
+                    indexer.warmInBackground();
+                    saveProperties();
+                    JOptionPane.showMessageDialog(frame, "Searching " + indexer.getIndexLocations());
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(frame, "Error attaching index: " + ex.getMessage());
+                }
+            }
+        });
+        JButton detachButton = new JButton("Detach");
+        detachButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                try {
+                    indexer.detachIndex(federatedField.getText());
+                    saveProperties();
+                    JOptionPane.showMessageDialog(frame, "Searching " + indexer.getIndexLocations());
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(frame, "Error detaching index: " + ex.getMessage());
+                }
+            }
+        });
+        federatedPanel.add(new JLabel("Also search:"));
+        federatedPanel.add(federatedField);
+        federatedPanel.add(attachButton);
+        federatedPanel.add(detachButton);
+        mainPanel.add(federatedPanel);
+
         // Add search panel
         JPanel searchPanel = new JPanel();
         JTextField searchField = new JTextField(30);
+        JTextField drillDownField = new JTextField(30);
+        drillDownField.setToolTipText("e.g. dir=/var/log; extension=txt; filename=app.txt");
         JButton searchButton = new JButton("Search");
+        JCheckBox profileBox = new JCheckBox("Profile");
         searchButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 // perform search and show results in a dialog
@@ -88,7 +133,7 @@ public class TextFileIndexerUI {
                 String query = searchField.getText();
                 String searchResults = "null"; // Replace this with actual search results
                 try {
-                    searchResults = indexer.search(query);
+                    searchResults = indexer.search(query, parseDrillDown(drillDownField.getText()), profileBox.isSelected());
                 } catch (IOException ex) {
                     ex.printStackTrace();
                 }
@@ -99,25 +144,76 @@ public class TextFileIndexerUI {
         searchPanel.add(searchField);
         searchPanel.add(searchButton);
 
+        // Add drill down panel, narrows the search to one directory, extension or file
+        JPanel drillDownPanel = new JPanel();
+        drillDownPanel.add(new JLabel("Drill down:"));
+        drillDownPanel.add(drillDownField);
+        drillDownPanel.add(profileBox);
+
         // Center the JFrame on screen
         frame.setLocationRelativeTo(null);
         mainPanel.add(searchPanel);
+        mainPanel.add(drillDownPanel);
         frame.add(mainPanel, BorderLayout.CENTER);
         frame.add(scrollPane, BorderLayout.SOUTH);
         frame.pack();
         frame.setVisible(true);
 
-        // Auto-create the index if the indexDir property is set
+        // Auto-open the index if the indexDir property is set, read only until something is indexed
         if (indexDir != null && !indexDir.isEmpty()) {
             try {
-                indexer = new TextFileIndexerForUI(indexDir);
-                JOptionPane.showMessageDialog(frame, "Index created successfully");
+                indexer = openIndexer(indexDir);
             } catch (Exception ex) {
                 JOptionPane.showMessageDialog(frame, "Error creating index: " + ex.getMessage());
             }
         }
     }
 
+    private TextFileIndexerForUI openIndexer(String location) throws IOException {
+        TextFileIndexerForUI opened = new TextFileIndexerForUI(location,
+                IngestMemoryGovernor.fromProperties(properties), IndexWarmer.fromProperties(properties));
+        opened.setSlowQueryLog(SlowQueryLog.fromProperties(properties));
+        for (String attached : properties.getProperty(FEDERATED_INDEX_DIRS_PROPERTY, "").split(";")) {
+            attached = attached.trim();
+            if (attached.isEmpty() || FederatedSearcher.normalize(attached).equals(FederatedSearcher.normalize(location))) {
+                continue;
+            }
+            try {
+                opened.attachIndex(attached);
+            } catch (Exception ex) {
+                System.out.println("Could not attach " + attached + " : " + ex.getMessage());
+            }
+        }
+        opened.warmInBackground();
+        return opened;
+    }
+
+    /**
+     * Parses "dir=..; extension=..; filename=.." into facet field to value.
+     */
+    private static Map<String, String> parseDrillDown(String text) {
+        Map<String, String> drillDown = new HashMap<>();
+        for (String part : text.split(";")) {
+            int eq = part.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String name = part.substring(0, eq).trim().toLowerCase();
+            String value = part.substring(eq + 1).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            if (name.equals("dir")) {
+                drillDown.put(FacetFields.DIR, value);
+            } else if (name.equals("extension") || name.equals("ext")) {
+                drillDown.put(FacetFields.EXTENSION, value);
+            } else if (name.equals("filename")) {
+                drillDown.put(FacetFields.FILENAME, value);
+            }
+        }
+        return drillDown;
+    }
+
     private void loadProperties() {
         try (FileInputStream in = new FileInputStream(PROPERTIES_FILE_PATH)) {
             properties.load(in);
@@ -129,6 +225,11 @@ public class TextFileIndexerUI {
 
     private void saveProperties() {
         properties.setProperty(INDEX_DIR_PROPERTY, indexDir);
+        if (indexer != null) {
+            List<String> attached = new ArrayList<>(indexer.getIndexLocations());
+            attached.remove(FederatedSearcher.normalize(indexer.indexLocation));
+            properties.setProperty(FEDERATED_INDEX_DIRS_PROPERTY, String.join(";", attached));
+        }
         try (FileOutputStream out = new FileOutputStream(PROPERTIES_FILE_PATH)) {
             properties.store(out, null);
         } catch (IOException e) {